@@ -26,6 +26,9 @@ import jdk.nashorn.api.scripting.*;
 public class JavascriptEngine {
 	/** The version string for this library.
 	 * <b>Change log:</b><br>
+	 * V 1.0.5 <br><ul>
+	 * <li>added optional result caching (<code>Memoize</code>) for bound methods</li>
+	 * </ul>
 	 * V 1.0.4 <br><ul>
 	 * <li>fixed bug in error message</li>
 	 * </ul>
@@ -38,7 +41,7 @@ public class JavascriptEngine {
 	 * <li>Added line number information for method invocation exceptions</li>
 	 * </ul>
 	 */
-	public static final String VERSION = "1.0.4";
+	public static final String VERSION = "1.0.5";
 	
 	private final ScriptEngineManager manager;
 	private final ScriptEngine engine;
@@ -125,6 +128,55 @@ public class JavascriptEngine {
 		Method method = instance.getClass().getMethod(methodName, paramTypes);
 		getBindings().put(method.getName(), new MethodBinding(method, instance));
 	}
+	/**
+	 * Adds a pure method of a Java object to appear as a global function in 
+	 * the script, caching its results. Repeated calls with the same arguments 
+	 * are answered from <code>memoize</code> instead of invoking the method 
+	 * again. Only use this for methods whose result depends on nothing but 
+	 * their arguments. Results that are not immutable values (e.g. a 
+	 * <code>List</code>) are never cached, so callers can't change each 
+	 * other's results. See <code>bindMethod(Method, Object)</code> for details.
+	 * @param method The Method to bind to the script environment
+	 * @param instance The object instance that is providing the method
+	 * @param memoize The result cache for this method (e.g. 
+	 * <code>Memoize.lru(10_000)</code>), which also provides the hit-rate 
+	 * statistics. Each bound method needs its own instance.
+	 * @throws IllegalStateException Thrown if <code>memoize</code> is already 
+	 * used by a different method.
+	 */
+	public void bindMethod(Method method, Object instance, Memoize memoize){
+		memoize.bindTo(method, instance);
+		getBindings().put(method.getName(), new MethodBinding(method, instance, memoize));
+	}
+	/**
+	 * Adds a pure method of a Java object to appear as a global function in 
+	 * the script, caching its results. Repeated calls with the same arguments 
+	 * are answered from <code>memoize</code> instead of invoking the method 
+	 * again. Only use this for methods whose result depends on nothing but 
+	 * their arguments. Results that are not immutable values (e.g. a 
+	 * <code>List</code>) are never cached, so callers can't change each 
+	 * other's results. See <code>bindMethod(Object, String, Class...)</code> 
+	 * for details.
+	 * @param instance The object instance that is providing the method 
+	 * @param methodName The name of the method to bind (must be a member of the 
+	 * object you passed as the <code>instance</code> parameter.
+	 * @param memoize The result cache for this method (e.g. 
+	 * <code>Memoize.lru(10_000)</code>), which also provides the hit-rate 
+	 * statistics. Each bound method needs its own instance.
+	 * @param paramTypes A list of <code>Class</code> objects corresponding to 
+	 * the parameters of the specific method you wish to bind (function 
+	 * overloading is not supported in Javascript).
+	 * @throws NoSuchMethodException Thrown is <code>instance</code> has no 
+	 * method of name <code>methodName</code> whose parameter list is defined by 
+	 * <code>paramTypes</code>.
+	 * @throws IllegalStateException Thrown if <code>memoize</code> is already 
+	 * used by a different method.
+	 */
+	public void bindMethod(Object instance, String methodName, Memoize memoize, Class<?>... paramTypes) throws NoSuchMethodException{
+		Method method = instance.getClass().getMethod(methodName, paramTypes);
+		memoize.bindTo(method, instance);
+		getBindings().put(method.getName(), new MethodBinding(method, instance, memoize));
+	}
 	/**
 	 * Gets a variable that has been bound to the script environment or was 
 	 * assigned a value within the script. Note that Javascript objects and Java 
@@ -333,9 +385,14 @@ public class JavascriptEngine {
 	private static class MethodBinding implements JSObject{
 		private final Object instance;
 		private final Method method;
+		private final Memoize memoize; // null if results are not cached
 		public MethodBinding(Method m, Object target){
+			this(m, target, null);
+		}
+		public MethodBinding(Method m, Object target, Memoize memoize){
 			this.method = m;
 			this.instance = target;
+			this.memoize = memoize;
 		}
 		@Override
 		public String toString() {
@@ -356,6 +413,9 @@ public class JavascriptEngine {
 		public Object call(Object o, Object... os) {
 			try {
 				// ignore o, it is simply a scope reference
+				if(memoize != null){
+					return memoize.call(method, instance, os);
+				}
 				return method.invoke(instance, os);
 			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
 				StackTraceElement[] stackTrace = ex.getStackTrace();
@@ -481,7 +541,10 @@ public class JavascriptEngine {
 		@Override
 		public double toNumber() {
 			if(method.getParameterCount() == 0 && Number.class.isAssignableFrom(method.getReturnType())){
-				try{return ((Number)method.invoke(instance, (Object[]) null)).doubleValue();} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+				try{
+					Object value = (memoize != null) ? memoize.call(method, instance, null) : method.invoke(instance, (Object[]) null);
+					return ((Number)value).doubleValue();
+				} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
 				throw wrapMiscException(new RuntimeException("Error invoking Java native function "+this.toString(),ex));
 			}
 			} else {
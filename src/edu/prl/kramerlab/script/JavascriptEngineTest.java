@@ -44,6 +44,10 @@ import javax.swing.*;
 				// bind java method as a global function in the javascript environment
 				app.jsengine.bindMethod(app, "log", Object.class); // note that the class parameters have to match the method declaration EXACTLY
 				app.jsengine.bindMethod(app, "sayHello", String.class, Integer.TYPE); 
+				// bind a slow but pure java method with a cache, so that repeated calls are instant
+				Memoize primeCache = Memoize.lru(100);
+				app.jsengine.bindMethod(app, "countPrimes", primeCache, Object.class);
+				app.jsengine.bindObject("primeCache", primeCache); // lets the script print the cache statistics
 				
 				JFrame frame = new JFrame("Super Easy Nashorn Javascript Engine Test");
 				frame.getContentPane().add(p);
@@ -74,6 +78,20 @@ import javax.swing.*;
 		logArea.append("\n");
 	}
 	
+	public int countPrimes(Object limit){
+		// deliberately slow, result only depends on the argument
+		int n = ((Number)limit).intValue();
+		int count = 0;
+		for (int i = 2; i < n; i++){
+			boolean prime = true;
+			for (int j = 2; j < i && prime; j++){
+				prime = (i % j != 0);
+			}
+			if (prime) count++;
+		}
+		return count;
+	}
+	
 	
 	
 	private JPanel makeGUI() {
@@ -83,8 +101,11 @@ import javax.swing.*;
 		vpane.add(l1);
 		jsArea = new JTextArea(20, 80);
 		jsArea.setText("// Super Easy Nashorn Javascript Example App\n" +
-				"// bound \"log\" and \"sayHello\" as methods and \"fileChooser\" as a JFileChooser\n" +
+				"// bound \"log\", \"sayHello\" and \"countPrimes\" as methods and \"fileChooser\" as a JFileChooser\n" +
 				"sayHello(\"Bob\",3);\n" +
+				"// countPrimes is memoized, so only the first call does any work\n" +
+				"for (var i = 0; i < 1000; i++) countPrimes(20000);\n" +
+				"log(\"Bob counted \"+countPrimes(20000)+\" primes. \"+primeCache);\n" +
 				"log(\"Bob is smiling.\");\n" +
 				"fileChooser.showOpenDialog(null);\n" +
 				"var file = fileChooser.getSelectedFile();\n" +
@@ -0,0 +1,398 @@
+/*
+ * I do hereby declare this code to be public domain.
+ * Do whatever the **** you want with it.
+ * -CCHall
+ */
+
+package edu.prl.kramerlab.script;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded result cache for pure Java methods bound to the script
+ * environment. Pass an instance to one of the <code>bindMethod(...)</code>
+ * methods of <code>JavascriptEngine</code> and repeated calls with equal
+ * arguments will return the cached result instead of invoking the method
+ * again. For example:<p><code>
+ * Memoize cache = Memoize.lru(10_000).expireAfter(5, TimeUnit.MINUTES);<br>
+ * javascriptEngine.bindMethod(converter, "toMillimeters", cache, Object.class);<br>
+ * ...<br>
+ * System.out.println("hit rate: " + cache.getHitRate());
+ * </code><p>
+ * Only bind methods this way if they are pure (same arguments always give the
+ * same result and there are no side effects) and expensive. Looking up a
+ * cached result costs about as much as a cheap reflective call, so caching
+ * a trivial method will not make it any faster.<p>
+ * Only immutable arguments are used as cache keys: <code>null</code>,
+ * <code>String</code>, the boxed primitive types, <code>BigInteger</code>,
+ * <code>BigDecimal</code> and enums. If any argument is anything else (e.g. a
+ * Javascript object or array, <code>undefined</code>, or a Java array), the
+ * method is simply invoked and nothing is cached, because the contents of
+ * such an argument can change between calls. The same rule applies to the
+ * result: if the method returns anything other than one of these immutable
+ * types (e.g. a <code>List</code> or an array), the result is not cached,
+ * since every caller would otherwise share, and could change, the same
+ * object. Exceptions thrown by the method are never cached.<p>
+ * A Memoize instance belongs to the first method it is bound to. Binding it
+ * to a different method or instance throws an
+ * <code>IllegalStateException</code>.<p>
+ * All methods are thread-safe. Cache lookups are serialized on a single lock,
+ * but the lock is only held for the lookup itself, not while the method
+ * runs. If several threads ask for the same missing result at the same time,
+ * the method is invoked once and the other threads wait for its result.
+ * @author CCHall
+ */
+public class Memoize {
+	/** How entries are chosen for removal when the cache is full. */
+	public static enum Eviction {
+		/** Removes the entry that was used least recently */
+		LEAST_RECENTLY_USED,
+		/** Removes the entry that was added first */
+		FIRST_IN_FIRST_OUT
+	}
+
+	/** Types whose instances are immutable and compare by value */
+	private static final Set<Class<?>> VALUE_TYPES = new HashSet<>(Arrays.asList(
+			String.class, Boolean.class, Character.class, Byte.class, Short.class,
+			Integer.class, Long.class, Float.class, Double.class,
+			BigInteger.class, BigDecimal.class));
+	/** Key for a call without arguments */
+	private static final Object NO_ARGS = new Object();
+	/** Stand-in for a null argument */
+	private static final Object NULL_ARG = new Object();
+	/** Result of an in-flight call whose return value could not be cached */
+	private static final Object NOT_CACHEABLE = new Object();
+
+	private final int maxEntries;
+	private final Eviction eviction;
+	private volatile long ttlNanos = 0; // 0 means no expiration
+	private final BoundedMap cache;
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong uncached = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+	private Method owner = null;
+	private Object ownerInstance = null;
+
+	/**
+	 * Creates a new cache.
+	 * @param maxEntries The maximum number of results to keep in memory
+	 * @param eviction The policy for choosing which result to forget when the
+	 * cache is full
+	 * @throws IllegalArgumentException Thrown if <code>maxEntries</code> is
+	 * less than 1
+	 */
+	public Memoize(int maxEntries, Eviction eviction){
+		if(maxEntries < 1){
+			throw new IllegalArgumentException("Cache size must be at least 1, was "+maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.eviction = Objects.requireNonNull(eviction);
+		cache = new BoundedMap(maxEntries, eviction == Eviction.LEAST_RECENTLY_USED, evictions);
+	}
+	/**
+	 * Creates a cache that forgets the least recently used result when full.
+	 * @param maxEntries The maximum number of results to keep in memory
+	 * @return A new Memoize instance
+	 */
+	public static Memoize lru(int maxEntries){
+		return new Memoize(maxEntries, Eviction.LEAST_RECENTLY_USED);
+	}
+	/**
+	 * Creates a cache that forgets the oldest result when full.
+	 * @param maxEntries The maximum number of results to keep in memory
+	 * @return A new Memoize instance
+	 */
+	public static Memoize fifo(int maxEntries){
+		return new Memoize(maxEntries, Eviction.FIRST_IN_FIRST_OUT);
+	}
+	/**
+	 * Sets how long a cached result stays valid. Expired results are
+	 * recomputed the next time they are requested.
+	 * @param duration The time-to-live (0 or less disables expiration)
+	 * @param unit The unit of <code>duration</code>
+	 * @return This Memoize instance
+	 */
+	public Memoize expireAfter(long duration, TimeUnit unit){
+		ttlNanos = Math.max(0, unit.toNanos(duration));
+		return this;
+	}
+
+	/**
+	 * Claims this cache for the given method, so that results of different
+	 * methods can never be mixed up.
+	 * @throws IllegalStateException Thrown if this cache already belongs to a
+	 * different method or instance.
+	 */
+	synchronized void bindTo(Method method, Object instance){
+		if(owner == null){
+			owner = method;
+			ownerInstance = instance;
+		} else if(owner.equals(method) == false || ownerInstance != instance){
+			throw new IllegalStateException("This Memoize is already used by "
+					+ownerInstance.getClass().getName()+"."+owner.getName()
+					+"(...); each bound method needs its own Memoize instance");
+		}
+	}
+
+	/**
+	 * Returns the cached result for the given arguments, or invokes
+	 * <code>method</code> and caches its result if there is none.
+	 */
+	Object call(Method method, Object instance, Object[] args) throws IllegalAccessException, InvocationTargetException{
+		Object key = keyFor(args);
+		if(key == null){
+			// mutable argument, can't be cached safely
+			uncached.incrementAndGet();
+			return method.invoke(instance, args);
+		}
+		long ttl = ttlNanos;
+		Entry e;
+		boolean mine = false;
+		synchronized(cache){
+			e = cache.get(key);
+			if(e != null && e.isExpired(ttl)){
+				cache.remove(key);
+				e = null;
+			}
+			if(e == null){
+				e = new Entry();
+				cache.put(key, e);
+				mine = true;
+			}
+		}
+		if(mine){
+			try{
+				Object value = method.invoke(instance, args);
+				if(isImmutable(value)){
+					misses.incrementAndGet();
+					e.complete(value);
+				} else {
+					// mutable result, every caller needs its own copy
+					uncached.incrementAndGet();
+					synchronized(cache){
+						cache.remove(key, e);
+					}
+					e.complete(NOT_CACHEABLE);
+				}
+				return value;
+			} catch (IllegalAccessException | InvocationTargetException | RuntimeException | Error ex){
+				synchronized(cache){
+					cache.remove(key, e);
+				}
+				e.fail(ex);
+				throw ex;
+			}
+		}
+		if(e.isDone() == false && e.owner == Thread.currentThread()){
+			// the method called itself with the same arguments, waiting would deadlock
+			uncached.incrementAndGet();
+			return method.invoke(instance, args);
+		}
+		try{
+			Object value = e.await();
+			if(value == NOT_CACHEABLE){
+				uncached.incrementAndGet();
+				return method.invoke(instance, args);
+			}
+			hits.incrementAndGet();
+			return value;
+		} catch (InterruptedException ex){
+			Thread.currentThread().interrupt();
+			uncached.incrementAndGet();
+			return method.invoke(instance, args);
+		}
+	}
+
+	/**
+	 * Makes a cache key from an argument list.
+	 * @return The key, or null if any of the arguments is not an immutable value
+	 */
+	private static Object keyFor(Object[] args){
+		if(args == null || args.length == 0){
+			return NO_ARGS;
+		}
+		if(args.length == 1){
+			return valueKey(args[0]);
+		}
+		Object[] values = new Object[args.length];
+		for(int i = 0; i < args.length; i++){
+			values[i] = valueKey(args[i]);
+			if(values[i] == null) return null;
+		}
+		return new Key(values);
+	}
+	private static Object valueKey(Object arg){
+		if(arg == null){
+			return NULL_ARG;
+		}
+		return isImmutable(arg) ? arg : null;
+	}
+	private static boolean isImmutable(Object o){
+		return o == null || VALUE_TYPES.contains(o.getClass()) || o instanceof Enum;
+	}
+
+	/**
+	 * Forgets all cached results. The statistics are not reset.
+	 */
+	public void clear(){
+		synchronized(cache){
+			cache.clear();
+		}
+	}
+	/**
+	 * Resets the hit, miss, uncached, and eviction counts to zero.
+	 */
+	public void resetStatistics(){
+		hits.set(0);
+		misses.set(0);
+		uncached.set(0);
+		evictions.set(0);
+	}
+	/**
+	 * @return The number of results currently cached
+	 */
+	public int size(){
+		synchronized(cache){
+			return cache.size();
+		}
+	}
+	/**
+	 * @return The maximum number of results that will be cached
+	 */
+	public int getMaxEntries(){
+		return maxEntries;
+	}
+	/**
+	 * @return The policy for choosing which result to forget when full
+	 */
+	public Eviction getEviction(){
+		return eviction;
+	}
+	/**
+	 * @return The number of calls that were answered from the cache
+	 */
+	public long getHitCount(){
+		return hits.get();
+	}
+	/**
+	 * @return The number of calls that invoked the Java method and cached
+	 * the result
+	 */
+	public long getMissCount(){
+		return misses.get();
+	}
+	/**
+	 * @return The number of calls that bypassed the cache, usually because an
+	 * argument or the result was not an immutable value (e.g. a Javascript
+	 * object or a <code>List</code>)
+	 */
+	public long getUncachedCount(){
+		return uncached.get();
+	}
+	/**
+	 * @return The number of results that were forgotten because the cache was
+	 * full (expired results are not counted)
+	 */
+	public long getEvictionCount(){
+		return evictions.get();
+	}
+	/**
+	 * @return The fraction of all calls answered from the cache (0 to 1), or
+	 * <code>NaN</code> if there have been no calls yet.
+	 */
+	public double getHitRate(){
+		long h = hits.get();
+		long total = h + misses.get() + uncached.get();
+		if(total == 0) return Double.NaN;
+		return (double)h / (double)total;
+	}
+
+	@Override
+	public String toString(){
+		return "Memoize["+eviction+", size="+size()+"/"+maxEntries
+				+", hits="+getHitCount()+", misses="+getMissCount()
+				+", uncached="+getUncachedCount()+", evictions="+getEvictionCount()+"]";
+	}
+
+	/** A cached result, or a result that is still being computed. */
+	private static class Entry{
+		final Thread owner = Thread.currentThread();
+		final CompletableFuture<Object> result = new CompletableFuture<>();
+		volatile long timestamp;
+		void complete(Object value){
+			timestamp = System.nanoTime();
+			result.complete(value);
+		}
+		void fail(Throwable t){
+			result.completeExceptionally(t);
+		}
+		boolean isDone(){
+			return result.isDone();
+		}
+		boolean isExpired(long ttl){
+			return ttl > 0 && isDone() && System.nanoTime() - timestamp >= ttl;
+		}
+		Object await() throws InterruptedException, IllegalAccessException, InvocationTargetException{
+			try{
+				return result.get();
+			} catch (ExecutionException ex){
+				// another thread's call failed, throw the same exception here
+				Throwable cause = ex.getCause();
+				if(cause instanceof InvocationTargetException) throw (InvocationTargetException)cause;
+				if(cause instanceof IllegalAccessException) throw (IllegalAccessException)cause;
+				if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+				if(cause instanceof Error) throw (Error)cause;
+				throw new InvocationTargetException(cause);
+			}
+		}
+	}
+
+	/** Key for calls with more than one argument. */
+	private static class Key{
+		private final Object[] values;
+		private final int hash;
+		Key(Object[] values){
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+		@Override
+		public boolean equals(Object o){
+			if(this == o) return true;
+			if(o instanceof Key == false) return false;
+			return Arrays.equals(values, ((Key)o).values);
+		}
+	}
+
+	/** LinkedHashMap that removes its eldest entry when it gets too big. */
+	private static class BoundedMap extends LinkedHashMap<Object,Entry>{
+		private static final long serialVersionUID = 1L;
+		private final int maxEntries;
+		private final AtomicLong evictions;
+		BoundedMap(int maxEntries, boolean accessOrder, AtomicLong evictions){
+			super(16, 0.75f, accessOrder);
+			this.maxEntries = maxEntries;
+			this.evictions = evictions;
+		}
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object,Entry> eldest) {
+			if(size() > maxEntries){
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+}
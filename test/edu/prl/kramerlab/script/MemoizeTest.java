@@ -0,0 +1,299 @@
+/*
+ * I do hereby declare this code to be public domain.
+ * Do whatever the **** you want with it.
+ * -CCHall
+ */
+
+package edu.prl.kramerlab.script;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import jdk.nashorn.api.scripting.JSObject;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Memoize, both through the JavascriptEngine and by calling the
+ * cache directly from several threads.
+ * @author CCHall
+ */
+public class MemoizeTest {
+
+	private JavascriptEngine engine;
+	private Target target;
+
+	@Before
+	public void setUp(){
+		engine = new JavascriptEngine();
+		target = new Target(engine);
+	}
+
+	@Test
+	public void mutatedJavascriptObjectIsNotServedStale() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		engine.bindMethod(target, "getX", cache, Object.class);
+		assertEquals("1 2", engine.eval("var o={x:1}; var r1=getX(o); o.x=2; r1+' '+getX(o)"));
+		assertEquals(2, cache.getUncachedCount());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void arraysAndUndefinedAreNotCached() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		engine.bindMethod(target, "identity", cache, Object.class);
+		engine.eval("for(var i = 0; i < 2; i++){ identity(null); identity('2'); identity(true); "
+				+ "identity(java.math.BigInteger.TEN); identity([1]); identity(Java.to([1],'int[]')); identity(undefined); }");
+		assertEquals(4, cache.getMissCount());
+		assertEquals(4, cache.getHitCount());
+		assertEquals(6, cache.getUncachedCount());
+	}
+
+	@Test
+	public void mutableResultIsNotCached() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		engine.bindMethod(target, "list", cache, Object.class);
+		assertEquals(3, ((Number)engine.eval("var l = list(1); l.add(99); list(1).size()")).intValue());
+		assertEquals(2, target.calls.get());
+		assertEquals(2, cache.getUncachedCount());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void sharedCacheIsRejected() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		engine.bindMethod(target, "identity", cache, Object.class);
+		engine.bindMethod(target, "identity", cache, Object.class); // same method is fine
+		try{
+			engine.bindMethod(target, "square", cache, Object.class);
+			fail("Memoize was bound to two different methods");
+		} catch (IllegalStateException ex){
+			// expected
+		}
+		try{
+			engine.bindMethod(new Target(engine), "identity", cache, Object.class);
+			fail("Memoize was bound to two different instances");
+		} catch (IllegalStateException ex){
+			// expected
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedEviction() throws Exception{
+		Memoize cache = Memoize.lru(2);
+		engine.bindMethod(target, "square", cache, Object.class);
+		engine.eval("for(var i = 0; i < 10; i++) square(3); square(4); square(3); square(5);"); // 5 evicts 4
+		assertEquals(3, target.calls.get());
+		assertEquals(10, cache.getHitCount());
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+		engine.eval("square(3)");
+		assertEquals(3, target.calls.get());
+		engine.eval("square(4)");
+		assertEquals(4, target.calls.get());
+	}
+
+	@Test
+	public void firstInFirstOutEviction() throws Exception{
+		Memoize cache = Memoize.fifo(2);
+		engine.bindMethod(target, "square", cache, Object.class);
+		engine.eval("square(1); square(2); square(1); square(3); square(1);"); // 3 evicts 1 even though it was just used
+		assertEquals(4, target.calls.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getEvictionCount());
+	}
+
+	@Test
+	public void expiredResultsAreRecomputed() throws Exception{
+		Memoize cache = Memoize.lru(10).expireAfter(50, TimeUnit.MILLISECONDS);
+		engine.bindMethod(target, "square", cache, Object.class);
+		engine.eval("square(7); square(7);");
+		assertEquals(1, target.calls.get());
+		Thread.sleep(100);
+		engine.eval("square(7)");
+		assertEquals(2, target.calls.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void exceptionsAreNotCached() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		engine.bindMethod(target, "fail", cache, Object.class);
+		for(int i = 0; i < 2; i++){
+			try{
+				engine.eval("fail(1)");
+				fail("exception was not thrown");
+			} catch (Exception ex){
+				// expected
+			}
+		}
+		assertEquals(2, target.calls.get());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	@SuppressWarnings("deprecation") // JSObject.toNumber() is what Nashorn calls on MethodBinding
+	public void toNumberUsesCache() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		engine.bindMethod(target, "answer", cache);
+		JSObject answer = (JSObject)engine.getBinding("answer");
+		assertEquals(42.0, answer.toNumber(), 0);
+		assertEquals(42.0, answer.toNumber(), 0);
+		assertEquals(1, target.calls.get());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test(timeout = 10000)
+	public void recursiveCallWithSameArgumentsDoesNotDeadlock() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		engine.bindMethod(target, "recurse", cache, Object.class);
+		assertEquals("inner", engine.eval("recurse(1)"));
+		assertEquals(2, target.calls.get());
+		assertEquals(1, cache.getUncachedCount());
+	}
+
+	@Test(timeout = 10000)
+	public void concurrentMissesInvokeOnce() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		List<Object> results = callConcurrently(cache, "blockThenReturn", 8);
+		assertEquals(1, target.calls.get());
+		assertEquals(7, cache.getHitCount());
+		for(Object r : results){
+			assertEquals("k", r);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void exceptionIsPassedToWaitingThreads() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		List<Object> results = callConcurrently(cache, "blockThenFail", 8);
+		assertEquals(1, target.calls.get());
+		for(Object r : results){
+			assertTrue(r instanceof InvocationTargetException);
+			assertTrue(((InvocationTargetException)r).getCause() instanceof IllegalStateException);
+		}
+		assertEquals(0, cache.size());
+	}
+
+	@Test(timeout = 10000)
+	public void waitingThreadsDoNotShareMutableResult() throws Exception{
+		Memoize cache = Memoize.lru(10);
+		List<Object> results = callConcurrently(cache, "blockThenList", 4);
+		assertEquals(4, target.calls.get());
+		assertEquals(4, cache.getUncachedCount());
+		Set<Object> distinct = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+		distinct.addAll(results);
+		assertEquals(4, distinct.size());
+	}
+
+	/**
+	 * Calls a method that blocks until all threads are waiting, so that one
+	 * thread is computing the result while the others wait for it.
+	 * @return The result or exception of each thread
+	 */
+	private List<Object> callConcurrently(final Memoize cache, String methodName, int threadCount) throws Exception{
+		final Method method = Target.class.getMethod(methodName, Object.class);
+		cache.bindTo(method, target);
+		final List<Object> results = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> threads = new ArrayList<>();
+		for(int i = 0; i < threadCount; i++){
+			Thread t = new Thread(() -> {
+				try{
+					results.add(cache.call(method, target, new Object[]{"k"}));
+				} catch (Exception ex){
+					results.add(ex);
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		// the first thread blocks inside the method, the rest wait for its result
+		boolean allWaiting = false;
+		while(allWaiting == false){
+			Thread.sleep(10);
+			allWaiting = true;
+			for(Thread t : threads){
+				if(t.getState() != Thread.State.WAITING) allWaiting = false;
+			}
+		}
+		target.release.countDown();
+		for(Thread t : threads){
+			t.join();
+		}
+		assertEquals(threadCount, results.size());
+		return results;
+	}
+
+	/** Methods to bind to the script environment, counting their invocations */
+	public static class Target{
+		final AtomicInteger calls = new AtomicInteger(0);
+		final CountDownLatch release = new CountDownLatch(1);
+		private final JavascriptEngine engine;
+		private int depth = 0;
+
+		public Target(JavascriptEngine engine){
+			this.engine = engine;
+		}
+
+		public Object getX(Object o){
+			calls.incrementAndGet();
+			return ((JSObject)o).getMember("x").toString();
+		}
+
+		public Object identity(Object o){
+			calls.incrementAndGet();
+			return o;
+		}
+
+		public Object square(Object n){
+			calls.incrementAndGet();
+			double d = ((Number)n).doubleValue();
+			return d * d;
+		}
+
+		public Object list(Object n){
+			calls.incrementAndGet();
+			return new ArrayList<>(Arrays.asList(n, n, n));
+		}
+
+		public Object fail(Object n){
+			calls.incrementAndGet();
+			throw new IllegalStateException("fail("+n+")");
+		}
+
+		public Double answer(){
+			calls.incrementAndGet();
+			return 42.0;
+		}
+
+		public Object recurse(Object n) throws Exception{
+			calls.incrementAndGet();
+			if(depth++ == 0){
+				return engine.eval("recurse("+n+")").toString();
+			}
+			return "inner";
+		}
+
+		public Object blockThenReturn(Object n) throws InterruptedException{
+			calls.incrementAndGet();
+			release.await();
+			return n;
+		}
+
+		public Object blockThenFail(Object n) throws InterruptedException{
+			calls.incrementAndGet();
+			release.await();
+			throw new IllegalStateException("fail("+n+")");
+		}
+
+		public Object blockThenList(Object n) throws InterruptedException{
+			calls.incrementAndGet();
+			release.await();
+			return new ArrayList<>(Arrays.asList(n));
+		}
+	}
+}